@@ -1,31 +1,53 @@
 package com.fitmymacros;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.http.HttpStatusCode;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fitmymacros.model.ChatCompletionResponse;
 import com.fitmymacros.model.ChatCompletionResponseChoice;
+import com.fitmymacros.model.Macros;
+import com.fitmymacros.model.OpenAIConfig;
+import com.fitmymacros.model.Recipe;
+import com.fitmymacros.nutrition.NutritionDatabase;
+import com.fitmymacros.nutrition.RecipeVerifier;
 
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import software.amazon.awssdk.core.client.config.ClientAsyncConfiguration;
+import software.amazon.awssdk.core.client.config.SdkAdvancedAsyncClientOption;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
-import software.amazon.awssdk.services.ssm.SsmClient;
+import software.amazon.awssdk.services.ssm.SsmAsyncClient;
 import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
-import software.amazon.awssdk.services.ssm.model.GetParameterResponse;
 import software.amazon.awssdk.services.ssm.model.SsmException;
 
 public class OpenAILambda implements RequestHandler<Map<String, Object>, Object> {
@@ -34,15 +56,22 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
     private static String OPENAI_MODEL_NAME = "OpenAI-Model";
     private static String OPENAI_MODEL_TEMPERATURE = "OpenAI-Model-Temperature";
     private static String OPENAI_MAX_TOKENS = "OpenAI-Max-Tokens";
-    private SsmClient ssmClient;
-    private String OPENAI_AI_KEY;
-    private String OPENAI_MODEL;
-    private Double MODEL_TEMPERATURE;
-    private Integer MODEL_MAX_TOKENS;
-    private DynamoDbClient dynamoDbClient;
+    private static int EVENT_LOOP_THREADS = 2;
+    private static int RECIPE_COUNT = 5;
+    private static String FINISH_REASON_LENGTH = "length";
+    private static String NUTRITION_DATABASE = "nutrition.bin";
+    private static double EXACT_PRECISION_TOLERANCE = 0.1;
+    private static double DEFAULT_TOLERANCE = 0.2;
+    private static double GRAMS_PER_OUNCE = 28.3495;
+    private static Pattern GRAMS_PATTERN = Pattern.compile("^\\s*(\\d+(?:[.,]\\d+)?)\\s*(?:g|gr|grams?)?\\.?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+    private SsmAsyncClient ssmClient;
+    private DynamoDbAsyncClient dynamoDbClient;
+    private Mono<OpenAIConfig> openAIConfig;
     private String URL = "https://api.openai.com/v1/chat/completions";
     private ObjectMapper objectMapper;
     private WebClient webClient;
+    private NutritionDatabase nutritionDatabase;
     private static List<String> fruitUnits = new ArrayList<>(Arrays.asList(
             "Apple", "Banana", "Orange", "Peach", "Kiwi", "Pear", "Cherry", "Plum", "Apricot", "Papaya", "Avocado",
             "Grapefruit", "Lemon", "Lime", "Tangerine", "Cantaloupe", "Honeydew melon", "Nectarine", "Persimmon",
@@ -50,14 +79,61 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
             "Kumquat", "Pummelo", "Satsuma", "Ugli fruit"));
 
     public OpenAILambda() {
-        this.ssmClient = SsmClient.builder().region(Region.EU_WEST_3).build();
-        this.dynamoDbClient = DynamoDbClient.builder().region(Region.EU_WEST_3).build();
-        this.OPENAI_AI_KEY = this.getOpenAIKeyFromParameterStore();
-        this.OPENAI_MODEL = this.getOpenAIModelFromParameterStore();
-        this.MODEL_TEMPERATURE = this.getTemperatureFromParameterStore();
-        this.MODEL_MAX_TOKENS = this.getMaxTokensFromParameterStore();
+        // One Netty event loop shared by the AWS SDK clients and the WebClient, so
+        // the function runs a single small I/O thread pool instead of one per client
+        this(SdkEventLoopGroup.builder().numberOfThreads(EVENT_LOOP_THREADS).build());
+    }
+
+    private OpenAILambda(SdkEventLoopGroup eventLoopGroup) {
+        this(eventLoopGroup, NettyNioAsyncHttpClient.builder().eventLoopGroup(eventLoopGroup).build());
+    }
+
+    private OpenAILambda(SdkEventLoopGroup eventLoopGroup, SdkAsyncHttpClient sdkHttpClient) {
+        this(SsmAsyncClient.builder()
+                .region(Region.EU_WEST_3)
+                .httpClient(sdkHttpClient)
+                .asyncConfiguration(createAsyncConfiguration())
+                .build(),
+                DynamoDbAsyncClient.builder()
+                        .region(Region.EU_WEST_3)
+                        .httpClient(sdkHttpClient)
+                        .asyncConfiguration(createAsyncConfiguration())
+                        .build(),
+                WebClient.builder()
+                        .clientConnector(new ReactorClientHttpConnector(
+                                HttpClient.create().runOn(eventLoopGroup.eventLoopGroup())))
+                        .build());
+    }
+
+    /**
+     * This constructor receives the clients, so they can be replaced in the tests
+     * 
+     * @param ssmClient
+     * @param dynamoDbClient
+     * @param webClient
+     */
+    OpenAILambda(SsmAsyncClient ssmClient, DynamoDbAsyncClient dynamoDbClient, WebClient webClient) {
+        this.ssmClient = ssmClient;
+        this.dynamoDbClient = dynamoDbClient;
+        this.webClient = webClient;
         this.objectMapper = new ObjectMapper();
-        this.webClient = WebClient.create();
+        this.nutritionDatabase = this.loadNutritionDatabase();
+        this.openAIConfig = this.loadOpenAIConfig();
+        // Start fetching the configuration during the init phase; a failure is not
+        // cached, so the first invocation will retry it
+        this.openAIConfig.onErrorResume(e -> Mono.empty()).subscribe();
+    }
+
+    /**
+     * This method creates the configuration that makes the SDK complete its
+     * futures on the event loop instead of a separate executor
+     * 
+     * @return
+     */
+    private static ClientAsyncConfiguration createAsyncConfiguration() {
+        return ClientAsyncConfiguration.builder()
+                .advancedOption(SdkAdvancedAsyncClientOption.FUTURE_COMPLETION_EXECUTOR, Runnable::run)
+                .build();
     }
 
     @Override
@@ -65,49 +141,292 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
         try {
             Map<String, String> queryParams = this.extractQueryString(input);
             System.out.println("input: " + input);
-            String prompt = generatePrompt(queryParams);
-            System.out.println("prompt: " + prompt);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", this.OPENAI_MODEL);
-            requestBody.put("messages", Arrays.asList(
-                    Map.of("role", "system",
-                            "content", this.generateSystemInstructions()),
-                    Map.of("role", "user",
-                            "content", prompt)));
-            requestBody.put("max_tokens", this.MODEL_MAX_TOKENS);
-            requestBody.put("temperature", MODEL_TEMPERATURE);
-
-            Mono<ChatCompletionResponse> completionResponseMono = webClient.post()
-                    .uri(URL)
-                    .headers(httpHeaders -> {
-                        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
-                        httpHeaders.setBearerAuth(OPENAI_AI_KEY);
+            RecipeVerifier recipeVerifier = this.createRecipeVerifier(queryParams);
+
+            // The user data query and the configuration fetch run concurrently, and the
+            // handler only blocks once, at the Lambda boundary
+            return Mono.zip(this.openAIConfig, this.getUserData(queryParams.get("userId")))
+                    .flatMap(tuple -> {
+                        String prompt = generatePrompt(queryParams, tuple.getT2(), RECIPE_COUNT);
+                        System.out.println("prompt: " + prompt);
+                        return this.getChatCompletionContent(tuple.getT1(), prompt)
+                                .flatMap(content -> this.verifyRecipes(tuple.getT1(), queryParams, tuple.getT2(),
+                                        content, recipeVerifier));
                     })
-                    .bodyValue(objectMapper.writeValueAsString(requestBody))
-                    .exchangeToMono(clientResponse -> {
-                        HttpStatusCode httpStatus = clientResponse.statusCode();
-                        if (httpStatus.is2xxSuccessful()) {
-                            return clientResponse.bodyToMono(ChatCompletionResponse.class);
-                        } else {
-                            Mono<String> stringMono = clientResponse.bodyToMono(String.class);
-                            stringMono.subscribe(s -> {
-                                System.out.println("Response from Open AI API " + s);
-                            });
-                            System.out.println("Error occurred while invoking Open AI API");
-                            return Mono.error(new Exception(
-                                    "Error occurred while generating wordage"));
-                        }
-                    });
-            ChatCompletionResponse completionResponse = completionResponseMono.block();
-            List<ChatCompletionResponseChoice> choices = completionResponse.getChoices();
-            ChatCompletionResponseChoice aChoice = choices.get(0);
-            return buildSuccessResponse(aChoice.getMessage().getContent());
+                    .map(content -> (Object) buildSuccessResponse(content))
+                    .onErrorResume(e -> Mono.just(this.buildErrorResponse(e.getMessage())))
+                    .block();
         } catch (Exception e) {
             return this.buildErrorResponse(e.getMessage());
         }
     }
 
+    /**
+     * This method sends the prompt to the openai api and returns the content of
+     * the first choice. A response cut off by the max tokens limit is an error,
+     * since the recipes JSON would be incomplete
+     * 
+     * @param config
+     * @param prompt
+     * @return
+     */
+    private Mono<String> getChatCompletionContent(OpenAIConfig config, String prompt) {
+        return this.getChatCompletion(config, prompt)
+                .flatMap(completionResponse -> {
+                    List<ChatCompletionResponseChoice> choices = completionResponse.getChoices();
+                    ChatCompletionResponseChoice aChoice = choices.get(0);
+                    if (FINISH_REASON_LENGTH.equals(aChoice.getFinishReason())) {
+                        System.out.println("Response from Open AI API truncated: " + aChoice.getMessage().getContent());
+                        return Mono.error(new RuntimeException(
+                                "The response generated by OpenAI was truncated, " + OPENAI_MAX_TOKENS
+                                        + " must be raised"));
+                    }
+                    return Mono.just(aChoice.getMessage().getContent());
+                });
+    }
+
+    /**
+     * This method sends the prompt to the openai api, using the given
+     * configuration
+     * 
+     * @param config
+     * @param prompt
+     * @return
+     */
+    private Mono<ChatCompletionResponse> getChatCompletion(OpenAIConfig config, String prompt) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", config.getModel());
+        requestBody.put("messages", Arrays.asList(
+                Map.of("role", "system",
+                        "content", this.generateSystemInstructions()),
+                Map.of("role", "user",
+                        "content", prompt)));
+        requestBody.put("max_tokens", config.getMaxTokens());
+        requestBody.put("temperature", config.getTemperature());
+
+        return Mono.fromCallable(() -> objectMapper.writeValueAsString(requestBody))
+                .flatMap(body -> webClient.post()
+                        .uri(URL)
+                        .headers(httpHeaders -> {
+                            httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+                            httpHeaders.setBearerAuth(config.getApiKey());
+                        })
+                        .bodyValue(body)
+                        .exchangeToMono(clientResponse -> {
+                            HttpStatusCode httpStatus = clientResponse.statusCode();
+                            if (httpStatus.is2xxSuccessful()) {
+                                return clientResponse.bodyToMono(ChatCompletionResponse.class);
+                            } else {
+                                System.out.println("Error occurred while invoking Open AI API");
+                                return clientResponse.bodyToMono(String.class)
+                                        .doOnNext(s -> System.out.println("Response from Open AI API " + s))
+                                        .then(Mono.error(new Exception(
+                                                "Error occurred while generating wordage")));
+                            }
+                        }));
+    }
+
+    /**
+     * This method checks the recipes generated by openai against the requested
+     * macros. The recipes whose estimated macros are off are replaced with a
+     * single request for just that number of new recipes, and the best ones are
+     * returned in the {"recipe name": description} format. Recipes that can't be
+     * estimated (e.g. with ingredients that are not in the nutrition database)
+     * are ranked last, but not replaced, since the replacements would most
+     * likely not be verifiable either. If the content is not a JSON object, it
+     * is returned as is
+     * 
+     * @param config
+     * @param queryParams
+     * @param queryResponse
+     * @param content
+     * @param recipeVerifier
+     * @return
+     */
+    private Mono<String> verifyRecipes(OpenAIConfig config, Map<String, String> queryParams,
+            QueryResponse queryResponse, String content, RecipeVerifier recipeVerifier) {
+        Map<String, Recipe> recipes = this.parseRecipes(content);
+        if (recipes == null) {
+            return Mono.just(content);
+        }
+        if (recipeVerifier == null) {
+            return Mono.fromCallable(() -> this.formatRecipes(recipes, null, recipes.size()));
+        }
+        Set<String> unknownIngredients = new TreeSet<>();
+        recipes.values().forEach(recipe -> unknownIngredients.addAll(recipeVerifier.unknownIngredients(recipe)));
+        if (!unknownIngredients.isEmpty()) {
+            System.out.println("Ingredients not in the nutrition database: " + unknownIngredients);
+        }
+        List<String> failingRecipes = recipes.entrySet().stream()
+                .filter(entry -> recipeVerifier.misses(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        if (failingRecipes.isEmpty()) {
+            return Mono.fromCallable(() -> this.formatRecipes(recipes, recipeVerifier, recipes.size()));
+        }
+        System.out.println("Recipes not matching the requested macros: " + failingRecipes);
+
+        String prompt = generatePrompt(queryParams, queryResponse, failingRecipes.size());
+        if (prompt == null) {
+            return Mono.fromCallable(() -> this.formatRecipes(recipes, recipeVerifier, recipes.size()));
+        }
+        String replacementPrompt = prompt + this.createReplacementInstructions(recipes.keySet());
+        return this.getChatCompletionContent(config, replacementPrompt)
+                .map(replacementContent -> {
+                    Map<String, Recipe> candidates = new LinkedHashMap<>(recipes);
+                    Map<String, Recipe> replacements = this.parseRecipes(replacementContent);
+                    if (replacements != null) {
+                        replacements.forEach(candidates::putIfAbsent);
+                    }
+                    return candidates;
+                })
+                .onErrorResume(e -> {
+                    System.out.println("Error while replacing recipes: " + e.getMessage());
+                    return Mono.just(recipes);
+                })
+                .map(candidates -> this.formatRecipes(candidates, recipeVerifier, recipes.size()));
+    }
+
+    /**
+     * This method parses the recipes generated by openai. The parsing is lenient,
+     * so a recipe with a missing or unexpected field is kept, with the fields
+     * that couldn't be read left empty
+     * 
+     * @param content
+     * @return the recipes by name, or null if the content is not a JSON object
+     */
+    private Map<String, Recipe> parseRecipes(String content) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(this.parseJsonObject(content));
+        } catch (Exception e) {
+            System.out.println("Error while parsing generated recipes: " + e.getMessage());
+            return null;
+        }
+        if (root == null || !root.isObject() || root.isEmpty()) {
+            return null;
+        }
+        Map<String, Recipe> recipes = new LinkedHashMap<>();
+        root.fields().forEachRemaining(field -> recipes.put(field.getKey(), this.parseRecipe(field.getValue())));
+        return recipes;
+    }
+
+    /**
+     * This method reads a single recipe, that can be either an object with its
+     * description and ingredients, or just its description
+     * 
+     * @param recipeNode
+     * @return
+     */
+    private Recipe parseRecipe(JsonNode recipeNode) {
+        Recipe recipe = new Recipe();
+        if (!recipeNode.isObject()) {
+            recipe.setDescription(recipeNode.asText());
+            return recipe;
+        }
+        recipe.setDescription(recipeNode.path("description").asText(null));
+        JsonNode ingredientsNode = recipeNode.path("ingredients");
+        if (ingredientsNode.isObject()) {
+            Map<String, Double> ingredients = new LinkedHashMap<>();
+            ingredientsNode.fields().forEachRemaining(
+                    ingredient -> ingredients.put(ingredient.getKey(), this.parseGrams(ingredient.getValue())));
+            recipe.setIngredients(ingredients);
+        }
+        return recipe;
+    }
+
+    /**
+     * This method reads the quantity of an ingredient, accepting numbers and
+     * texts such as "200g"
+     * 
+     * @param quantityNode
+     * @return the grams, or null if the quantity is not in grams (e.g. "1 cup")
+     */
+    private Double parseGrams(JsonNode quantityNode) {
+        if (quantityNode.isNumber()) {
+            return quantityNode.doubleValue();
+        }
+        if (quantityNode.isTextual()) {
+            Matcher matcher = GRAMS_PATTERN.matcher(quantityNode.asText());
+            if (matcher.matches()) {
+                return Double.valueOf(matcher.group(1).replace(',', '.'));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method ranks the recipes by how close their estimated macros are to
+     * the requested ones, and returns the best ones as a JSON with the format
+     * {"recipe name": description}. Without a verifier, the order is kept
+     * 
+     * @param recipes
+     * @param recipeVerifier
+     * @param recipeCount
+     * @return
+     */
+    private String formatRecipes(Map<String, Recipe> recipes, RecipeVerifier recipeVerifier, int recipeCount) {
+        Map<String, String> result = new LinkedHashMap<>();
+        Comparator<Map.Entry<String, Recipe>> ranking = recipeVerifier != null
+                ? Comparator.comparingDouble(entry -> recipeVerifier.score(entry.getValue()))
+                : (a, b) -> 0;
+        recipes.entrySet().stream()
+                .sorted(ranking)
+                .limit(recipeCount)
+                .forEach(entry -> result.put(entry.getKey(),
+                        entry.getValue().getDescription() != null ? entry.getValue().getDescription() : ""));
+        try {
+            return objectMapper.writeValueAsString(result);
+        } catch (IOException e) {
+            throw new RuntimeException("Error while serializing recipes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This method creates the verifier for the macros requested in the query
+     * params
+     * 
+     * @param input
+     * @return the verifier, or null if the nutrition database is not available or
+     *         the targets are not valid
+     */
+    private RecipeVerifier createRecipeVerifier(Map<String, String> input) {
+        if (this.nutritionDatabase == null) {
+            return null;
+        }
+        try {
+            double gramsPerUnit = "oz".equalsIgnoreCase(input.get("measureUnit")) ? GRAMS_PER_OUNCE : 1;
+            Macros target = new Macros(
+                    Integer.parseInt(input.get("calories")),
+                    Integer.parseInt(input.get("protein")) * gramsPerUnit,
+                    Integer.parseInt(input.get("carbs")) * gramsPerUnit,
+                    Integer.parseInt(input.get("fat")) * gramsPerUnit);
+            double tolerance = "exact".equalsIgnoreCase(input.get("precision")) ? EXACT_PRECISION_TOLERANCE
+                    : DEFAULT_TOLERANCE;
+            return new RecipeVerifier(this.nutritionDatabase, target, tolerance);
+        } catch (Exception e) {
+            System.out.println("Error while reading macro targets: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method memory-maps the nutrition database used to verify the
+     * generated recipes. If it can't be loaded, the recipes are not verified
+     * 
+     * @return
+     */
+    private NutritionDatabase loadNutritionDatabase() {
+        try {
+            NutritionDatabase database = NutritionDatabase.load(NUTRITION_DATABASE);
+            System.out.println("Nutrition database loaded with " + database.size() + " foods");
+            return database;
+        } catch (Exception e) {
+            System.out.println("Error while loading nutrition database: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * This method extracts the query params from the received event
      * 
@@ -169,106 +488,49 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
     }
 
     /**
-     * This method retrieves the clear text value for the openai key from the
-     * parameter store
-     * 
-     * @return
-     */
-    private String getOpenAIKeyFromParameterStore() {
-        try {
-            GetParameterRequest parameterRequest = GetParameterRequest.builder()
-                    .name(OPENAI_API_KEY_NAME)
-                    .withDecryption(true)
-                    .build();
-            GetParameterResponse parameterResponse = this.ssmClient.getParameter(parameterRequest);
-            return parameterResponse.parameter().value();
-
-        } catch (SsmException e) {
-            System.out.println("SSM Error: " + e.getMessage());
-            System.exit(1);
-        }
-        return null;
-    }
-
-    /**
-     * This method retrieves the clear text value for the openai model from the
-     * parameter store
-     * 
-     * @return
-     */
-    private String getOpenAIModelFromParameterStore() {
-        try {
-            GetParameterRequest parameterRequest = GetParameterRequest.builder()
-                    .name(OPENAI_MODEL_NAME)
-                    .withDecryption(true)
-                    .build();
-
-            GetParameterResponse parameterResponse = this.ssmClient.getParameter(parameterRequest);
-            return parameterResponse.parameter().value();
-
-        } catch (SsmException e) {
-            System.out.println("SSM Error: " + e.getMessage());
-            System.exit(1);
-        }
-        return null;
-    }
-
-    /**
-     * This method retrieves the clear value for the openai temperature to use from
-     * the
-     * parameter store
+     * This method retrieves the openai configuration from the parameter store,
+     * fetching all the parameters concurrently. The result is cached, except
+     * when the retrieval fails
      * 
      * @return
      */
-    private Double getTemperatureFromParameterStore() {
-        try {
-            GetParameterRequest parameterRequest = GetParameterRequest.builder()
-                    .name(OPENAI_MODEL_TEMPERATURE)
-                    .withDecryption(true)
-                    .build();
-
-            GetParameterResponse parameterResponse = this.ssmClient.getParameter(parameterRequest);
-            return Double.valueOf(parameterResponse.parameter().value());
-
-        } catch (SsmException e) {
-            System.out.println("SSM Error: " + e.getMessage());
-            System.exit(1);
-        }
-        return null;
+    Mono<OpenAIConfig> loadOpenAIConfig() {
+        return Mono.zip(
+                this.getParameterFromParameterStore(OPENAI_API_KEY_NAME),
+                this.getParameterFromParameterStore(OPENAI_MODEL_NAME),
+                this.getParameterFromParameterStore(OPENAI_MODEL_TEMPERATURE).map(Double::valueOf),
+                this.getParameterFromParameterStore(OPENAI_MAX_TOKENS).map(Integer::valueOf))
+                .map(tuple -> new OpenAIConfig(tuple.getT1(), tuple.getT2(), tuple.getT3(), tuple.getT4()))
+                .cache(config -> Duration.ofMillis(Long.MAX_VALUE), e -> Duration.ZERO, () -> Duration.ZERO);
     }
 
     /**
-     * This method retrieves the clear value for the openai max tokens to use from
-     * the
+     * This method retrieves the clear text value for the given parameter from the
      * parameter store
      * 
+     * @param parameterName
      * @return
      */
-    private Integer getMaxTokensFromParameterStore() {
-        try {
-            GetParameterRequest parameterRequest = GetParameterRequest.builder()
-                    .name(OPENAI_MAX_TOKENS)
-                    .withDecryption(true)
-                    .build();
-
-            GetParameterResponse parameterResponse = this.ssmClient.getParameter(parameterRequest);
-            return Integer.valueOf(parameterResponse.parameter().value());
-
-        } catch (SsmException e) {
-            System.out.println("SSM Error: " + e.getMessage());
-            System.exit(1);
-        }
-        return null;
+    private Mono<String> getParameterFromParameterStore(String parameterName) {
+        GetParameterRequest parameterRequest = GetParameterRequest.builder()
+                .name(parameterName)
+                .withDecryption(true)
+                .build();
+        return Mono.fromFuture(() -> this.ssmClient.getParameter(parameterRequest))
+                .map(parameterResponse -> parameterResponse.parameter().value())
+                .doOnError(SsmException.class, e -> System.out.println("SSM Error: " + e.getMessage()));
     }
 
     /**
      * This method generates the prompt that will be sent to the openai api
      * 
+     * @param input
+     * @param queryResponse
+     * @param recipeCount
      * @return
      */
-    private String generatePrompt(Map<String, String> input) {
+    private String generatePrompt(Map<String, String> input, QueryResponse queryResponse, int recipeCount) {
         try {
-            String userId = input.get("userId").toString();
             String measureUnit = input.get("measureUnit").toString();
             int calories = Integer.parseInt(input.get("calories").toString());
             int protein = Integer.parseInt(input.get("protein").toString());
@@ -287,9 +549,8 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
             String flavor = input.get("flavor").toString();
             String occasion = input.get("occasion").toString();
 
-            QueryResponse queryResponse = this.getUserData(userId);
             Map<String, AttributeValue> userData = queryResponse.items().get(0);
-            return this.createPrompt(precision, measureUnit, calories, protein, carbs, fat, satietyLevel,
+            return this.createPrompt(recipeCount, precision, measureUnit, calories, protein, carbs, fat, satietyLevel,
                     anyIngredientsMode,
                     expandIngredients, glutenFree, vegan, vegetarian, cuisineStyle, cookingTime, flavor, occasion,
                     userData);
@@ -305,23 +566,20 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
      * @param userId
      * @return
      */
-    private QueryResponse getUserData(String userId) {
-        try {
-            Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-            expressionAttributeValues.put(":uid", AttributeValue.builder().s(userId).build());
-            String keyConditionExpression = "userId = :uid";
-
-            QueryRequest queryRequest = QueryRequest.builder()
-                    .tableName("FitMyMacros")
-                    .keyConditionExpression(keyConditionExpression)
-                    .expressionAttributeValues(expressionAttributeValues)
-                    .build();
-
-            return dynamoDbClient.query(queryRequest);
-
-        } catch (DynamoDbException e) {
-            throw new RuntimeException("Error retrieving data from DynamoDB: " + e.getMessage());
-        }
+    private Mono<QueryResponse> getUserData(String userId) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":uid", AttributeValue.builder().s(userId).build());
+        String keyConditionExpression = "userId = :uid";
+
+        QueryRequest queryRequest = QueryRequest.builder()
+                .tableName("FitMyMacros")
+                .keyConditionExpression(keyConditionExpression)
+                .expressionAttributeValues(expressionAttributeValues)
+                .build();
+
+        return Mono.fromFuture(() -> dynamoDbClient.query(queryRequest))
+                .onErrorMap(DynamoDbException.class,
+                        e -> new RuntimeException("Error retrieving data from DynamoDB: " + e.getMessage()));
     }
 
     /**
@@ -329,6 +587,7 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
      * that the user has in the DB (food and quantities, allergies, vegan...) and
      * the actual data for the desired recipe generation (calories, macros...)
      * 
+     * @param recipeCount
      * @param precision
      * @param measureUnit
      * @param calories
@@ -348,10 +607,10 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
      * @param userData
      * @return
      */
-    private String createPrompt(String precision, String measureUnit, int calories, int protein, int carbs, int fat,
-            String satietyLevel, boolean anyIngredientsMode, boolean expandIngredients, boolean glutenFree,
-            boolean vegan, boolean vegetarian, String cuisineStyle, String cookingTime, String flavor,
-            String occasion, Map<String, AttributeValue> userData) {
+    private String createPrompt(int recipeCount, String precision, String measureUnit, int calories, int protein,
+            int carbs, int fat, String satietyLevel, boolean anyIngredientsMode, boolean expandIngredients,
+            boolean glutenFree, boolean vegan, boolean vegetarian, String cuisineStyle, String cookingTime,
+            String flavor, String occasion, Map<String, AttributeValue> userData) {
 
         System.out.println("userData: " + userData);
         StringBuilder promptBuilder = new StringBuilder();
@@ -359,12 +618,14 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
         // Target nutritional goals
         promptBuilder.append(
                 String.format(
-                        "Give me the name of 5 recipes.",
-                        precision, calories, protein, measureUnit, carbs, measureUnit, fat, measureUnit));
+                        "Give me %d recipes with %d calories, %d%s of protein, %d%s of carbs and %d%s of fat"
+                                + " (precision: %s)",
+                        recipeCount, calories, protein, measureUnit, carbs, measureUnit, fat, measureUnit,
+                        precision));
 
         // Desired satiety level
         if (satietyLevel.equalsIgnoreCase("satiating") || satietyLevel.equalsIgnoreCase("non satiating"))
-            promptBuilder.append(String.format("Ensure they are %s", satietyLevel));
+            promptBuilder.append(String.format(". Ensure they are %s", satietyLevel));
 
         // Details about available ingredients
         if (!anyIngredientsMode) {
@@ -510,7 +771,19 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
      * @return
      */
     private String generateSystemInstructions() {
-        return "You're a helpful assistant, that just returns recipes names and their short description as a JSON with this format: {\"recipe1\": description of the recipe, \"recipe2\": description of the recipe...}";
+        return "You're a helpful assistant, that just returns recipes names, their short description and their ingredients as a JSON with this format: {\"recipe1\": {\"description\": description of the recipe, \"ingredients\": {\"ingredient1\": grams, \"ingredient2\": grams...}}, \"recipe2\": {...}...}. Use the names of the available ingredients when possible, and give the quantities as numbers of grams of the raw, uncooked ingredients (e.g. dry rice or pasta, not cooked)";
+    }
+
+    /**
+     * This method creates the instructions appended to the prompt when asking
+     * for replacements of the recipes that didn't match the requested macros
+     * 
+     * @param previousRecipes
+     * @return
+     */
+    private String createReplacementInstructions(Collection<String> previousRecipes) {
+        return ". Make sure the quantities of the ingredients add up to the requested calories and macros,"
+                + " and that the recipes are different from: " + String.join(", ", previousRecipes);
     }
 
     /**
@@ -531,6 +804,24 @@ public class OpenAILambda implements RequestHandler<Map<String, Object>, Object>
         }
     }
 
+    /**
+     * This method removes any leading or trailing characters that could be
+     * generated before or after the JsonObject
+     * 
+     * @param openAIResult
+     * @return
+     */
+    private String parseJsonObject(String openAIResult) {
+        int startIndex = openAIResult.indexOf('{');
+        int endIndex = openAIResult.lastIndexOf('}');
+
+        if (startIndex != -1 && endIndex != -1) {
+            return openAIResult.substring(startIndex, endIndex + 1);
+        } else {
+            throw new RuntimeException("Invalid JSON string format generated by OpenAI");
+        }
+    }
+
     private Map<String, Object> buildSuccessResponse(String response) {
         Map<String, Object> responseBody = new HashMap<>();
         responseBody.put("statusCode", 200);
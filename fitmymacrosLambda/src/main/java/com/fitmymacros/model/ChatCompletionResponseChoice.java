@@ -1,8 +1,11 @@
 package com.fitmymacros.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class ChatCompletionResponseChoice {
     private ChatCompletionResponseChoiceMessage message;
     private Integer index;
+    @JsonProperty("finish_reason")
     private String finishReason;
 
     public ChatCompletionResponseChoiceMessage getMessage() {
@@ -0,0 +1,37 @@
+package com.fitmymacros.model;
+
+public class Macros {
+    private double calories;
+    private double protein;
+    private double carbs;
+    private double fat;
+
+    public Macros(double calories, double protein, double carbs, double fat) {
+        this.calories = calories;
+        this.protein = protein;
+        this.carbs = carbs;
+        this.fat = fat;
+    }
+
+    public double getCalories() {
+        return calories;
+    }
+
+    public double getProtein() {
+        return protein;
+    }
+
+    public double getCarbs() {
+        return carbs;
+    }
+
+    public double getFat() {
+        return fat;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.0f kcal, %.0fg protein, %.0fg carbs, %.0fg fat", calories, protein, carbs, fat);
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.fitmymacros.model;
+
+public class OpenAIConfig {
+    private String apiKey;
+    private String model;
+    private Double temperature;
+    private Integer maxTokens;
+
+    public OpenAIConfig(String apiKey, String model, Double temperature, Integer maxTokens) {
+        this.apiKey = apiKey;
+        this.model = model;
+        this.temperature = temperature;
+        this.maxTokens = maxTokens;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public Double getTemperature() {
+        return temperature;
+    }
+
+    public Integer getMaxTokens() {
+        return maxTokens;
+    }
+
+}
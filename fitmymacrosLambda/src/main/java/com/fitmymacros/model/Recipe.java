@@ -0,0 +1,25 @@
+package com.fitmymacros.model;
+
+import java.util.Map;
+
+public class Recipe {
+    private String description;
+    private Map<String, Double> ingredients;
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public Map<String, Double> getIngredients() {
+        return ingredients;
+    }
+
+    public void setIngredients(Map<String, Double> ingredients) {
+        this.ingredients = ingredients;
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.fitmymacros.nutrition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import com.fitmymacros.model.Macros;
+
+/**
+ * Read-only table with the macros per 100g of the foods that can be stored in
+ * the user pantry. The table is a binary file, generated from nutrition.csv
+ * by NutritionDatabaseBuilder in the test sources, that is memory-mapped once
+ * and searched in place, so a lookup is a binary search over the mapped
+ * records.
+ *
+ * File layout (big endian): magic, version and record count as ints, followed
+ * by the records sorted by name. Each record is the normalized name as UTF-8,
+ * zero-padded to {@link #NAME_BYTES}, and the calories, protein, carbs and fat
+ * as floats.
+ */
+public class NutritionDatabase {
+
+    static final int MAGIC = 0x464D4D4E; // "FMMN"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 12;
+    static final int NAME_BYTES = 32;
+    static final int RECORD_BYTES = NAME_BYTES + 4 * Float.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int recordCount;
+
+    private NutritionDatabase(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("Invalid nutrition database format");
+        }
+        this.recordCount = buffer.getInt(8);
+        if (buffer.capacity() != HEADER_BYTES + (long) recordCount * RECORD_BYTES) {
+            throw new IllegalStateException("Invalid nutrition database size");
+        }
+    }
+
+    /**
+     * This method memory-maps the nutrition database stored in the given
+     * classpath resource. If the resource is not a plain file (e.g. it is
+     * packaged inside a jar), it is first copied to a temporary file
+     * 
+     * @param resourceName
+     * @return
+     * @throws IOException
+     */
+    public static NutritionDatabase load(String resourceName) throws IOException {
+        URL resource = NutritionDatabase.class.getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new IOException("Nutrition database not found: " + resourceName);
+        }
+        Path path;
+        if ("file".equals(resource.getProtocol())) {
+            try {
+                path = Path.of(resource.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        } else {
+            path = Files.createTempFile("nutrition", ".bin");
+            path.toFile().deleteOnExit();
+            try (InputStream inputStream = resource.openStream()) {
+                Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return map(path);
+    }
+
+    /**
+     * This method memory-maps the nutrition database stored in the given file
+     * 
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static NutritionDatabase map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new NutritionDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * This method returns the macros per 100g of the given food, or null if the
+     * food is not in the database. If the exact name is not found, its singular
+     * forms ("-ies" to "-y", then without "-es" or "-s") are also tried
+     * 
+     * @param foodName
+     * @return
+     */
+    public Macros lookup(String foodName) {
+        String name = normalize(foodName);
+        int index = this.indexOf(name);
+        if (index < 0 && name.endsWith("ies")) {
+            index = this.indexOf(name.substring(0, name.length() - 3) + "y");
+        }
+        if (index < 0 && name.endsWith("es")) {
+            index = this.indexOf(name.substring(0, name.length() - 2));
+        }
+        if (index < 0 && name.endsWith("s")) {
+            index = this.indexOf(name.substring(0, name.length() - 1));
+        }
+        if (index < 0) {
+            return null;
+        }
+        int offset = HEADER_BYTES + index * RECORD_BYTES + NAME_BYTES;
+        return new Macros(
+                buffer.getFloat(offset),
+                buffer.getFloat(offset + Float.BYTES),
+                buffer.getFloat(offset + 2 * Float.BYTES),
+                buffer.getFloat(offset + 3 * Float.BYTES));
+    }
+
+    /**
+     * This method binary searches the records for the given normalized name
+     * 
+     * @param name
+     * @return the index of the record, or -1 if it is not found
+     */
+    private int indexOf(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        if (key.length == 0 || key.length > NAME_BYTES) {
+            return -1;
+        }
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = this.compareName(mid, key);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method compares the name of the given record with the key, as
+     * unsigned bytes with the key zero-padded to {@link #NAME_BYTES}
+     * 
+     * @param index
+     * @param key
+     * @return
+     */
+    private int compareName(int index, byte[] key) {
+        int offset = HEADER_BYTES + index * RECORD_BYTES;
+        for (int i = 0; i < NAME_BYTES; i++) {
+            int recordByte = buffer.get(offset + i) & 0xFF;
+            int keyByte = i < key.length ? key[i] & 0xFF : 0;
+            if (recordByte != keyByte) {
+                return recordByte - keyByte;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * This method normalizes a food name, so that the names stored by the users
+     * and the ones generated by the model match the ones in the database
+     * 
+     * @param foodName
+     * @return
+     */
+    static String normalize(String foodName) {
+        return foodName.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.fitmymacros.nutrition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fitmymacros.model.Macros;
+import com.fitmymacros.model.Recipe;
+
+/**
+ * Estimates the macros of a generated recipe from its ingredients, using the
+ * {@link NutritionDatabase}, and checks them against the requested targets.
+ */
+public class RecipeVerifier {
+
+    /**
+     * Ingredients up to this weight that are not in the database (a pinch of a
+     * seasoning, a few leaves of a herb...) are ignored instead of making the
+     * recipe unverifiable
+     */
+    static final double NEGLIGIBLE_GRAMS = 10;
+
+    private final NutritionDatabase nutritionDatabase;
+    private final Macros target;
+    private final double tolerance;
+
+    /**
+     * @param nutritionDatabase
+     * @param target
+     * @param tolerance maximum relative deviation allowed for each macro, e.g.
+     *                  0.1 for 10%
+     */
+    public RecipeVerifier(NutritionDatabase nutritionDatabase, Macros target, double tolerance) {
+        this.nutritionDatabase = nutritionDatabase;
+        this.target = target;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * This method estimates the macros of a recipe, adding up the macros of its
+     * ingredients, whose quantities are raw grams
+     * 
+     * @param recipe
+     * @return the estimated macros, or null if the recipe has no ingredients, any
+     *         quantity is missing, or a non-negligible ingredient is not in the
+     *         database
+     */
+    public Macros estimate(Recipe recipe) {
+        Map<String, Double> ingredients = recipe.getIngredients();
+        if (ingredients == null || ingredients.isEmpty()) {
+            return null;
+        }
+        double calories = 0, protein = 0, carbs = 0, fat = 0;
+        for (Map.Entry<String, Double> ingredient : ingredients.entrySet()) {
+            if (ingredient.getValue() == null) {
+                return null;
+            }
+            Macros per100g = nutritionDatabase.lookup(ingredient.getKey());
+            if (per100g == null) {
+                if (ingredient.getValue() <= NEGLIGIBLE_GRAMS) {
+                    continue;
+                }
+                return null;
+            }
+            double factor = ingredient.getValue() / 100;
+            calories += per100g.getCalories() * factor;
+            protein += per100g.getProtein() * factor;
+            carbs += per100g.getCarbs() * factor;
+            fat += per100g.getFat() * factor;
+        }
+        return new Macros(calories, protein, carbs, fat);
+    }
+
+    /**
+     * This method returns the largest relative deviation of the estimated
+     * macros of a recipe from the targets. Recipes that cannot be estimated get
+     * an infinite score, so they never pass and rank behind the verified ones
+     * 
+     * @param recipe
+     * @return
+     */
+    public double score(Recipe recipe) {
+        Macros estimate = this.estimate(recipe);
+        if (estimate == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double deviation = deviation(estimate.getCalories(), target.getCalories());
+        deviation = Math.max(deviation, deviation(estimate.getProtein(), target.getProtein()));
+        deviation = Math.max(deviation, deviation(estimate.getCarbs(), target.getCarbs()));
+        return Math.max(deviation, deviation(estimate.getFat(), target.getFat()));
+    }
+
+    public boolean passes(Recipe recipe) {
+        return this.score(recipe) <= tolerance;
+    }
+
+    /**
+     * This method checks if the macros of a recipe could be estimated and are
+     * off the targets. Unlike {@link #passes(Recipe)}, it is false for recipes
+     * that can't be estimated
+     * 
+     * @param recipe
+     * @return
+     */
+    public boolean misses(Recipe recipe) {
+        double score = this.score(recipe);
+        return !Double.isInfinite(score) && score > tolerance;
+    }
+
+    /**
+     * This method returns the ingredients of a recipe that are not in the
+     * database, whatever their quantity
+     * 
+     * @param recipe
+     * @return
+     */
+    public List<String> unknownIngredients(Recipe recipe) {
+        List<String> unknownIngredients = new ArrayList<>();
+        if (recipe.getIngredients() != null) {
+            for (String ingredient : recipe.getIngredients().keySet()) {
+                if (nutritionDatabase.lookup(ingredient) == null) {
+                    unknownIngredients.add(ingredient);
+                }
+            }
+        }
+        return unknownIngredients;
+    }
+
+    private static double deviation(double estimated, double target) {
+        return target > 0 ? Math.abs(estimated - target) / target : 0;
+    }
+
+}
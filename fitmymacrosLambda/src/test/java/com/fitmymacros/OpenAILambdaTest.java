@@ -0,0 +1,105 @@
+package com.fitmymacros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fitmymacros.model.OpenAIConfig;
+
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.ssm.SsmAsyncClient;
+import software.amazon.awssdk.services.ssm.model.GetParameterRequest;
+import software.amazon.awssdk.services.ssm.model.GetParameterResponse;
+import software.amazon.awssdk.services.ssm.model.Parameter;
+import software.amazon.awssdk.services.ssm.model.SsmException;
+
+public class OpenAILambdaTest {
+
+    private SsmAsyncClient ssmClient;
+    private DynamoDbAsyncClient dynamoDbClient;
+    private AtomicBoolean ssmFailing;
+    private AtomicInteger ssmCalls;
+
+    @Before
+    public void setUp() {
+        ssmFailing = new AtomicBoolean(false);
+        ssmCalls = new AtomicInteger();
+        ssmClient = mock(SsmAsyncClient.class);
+        when(ssmClient.getParameter(any(GetParameterRequest.class))).thenAnswer(invocation -> {
+            ssmCalls.incrementAndGet();
+            if (ssmFailing.get()) {
+                return CompletableFuture.failedFuture(SsmException.builder().message("SSM unavailable").build());
+            }
+            GetParameterRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(GetParameterResponse.builder()
+                    .parameter(Parameter.builder().value(parameterValue(request.name())).build())
+                    .build());
+        });
+        dynamoDbClient = mock(DynamoDbAsyncClient.class);
+    }
+
+    @Test
+    public void loadOpenAIConfigShouldRetryAfterAnErrorAndCacheTheValue() {
+        OpenAILambda lambda = new OpenAILambda(ssmClient, dynamoDbClient, WebClient.create());
+        ssmFailing.set(true);
+        Mono<OpenAIConfig> config = lambda.loadOpenAIConfig();
+        try {
+            config.block();
+            fail("The SSM error should be propagated");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("SSM unavailable"));
+        }
+
+        ssmFailing.set(false);
+        assertEquals("gpt-test", config.block().getModel());
+        int callsAfterSuccess = ssmCalls.get();
+        OpenAIConfig cached = config.block();
+        assertEquals(callsAfterSuccess, ssmCalls.get());
+        assertEquals(Double.valueOf(0.5), cached.getTemperature());
+        assertEquals(Integer.valueOf(300), cached.getMaxTokens());
+        assertEquals("api-key", cached.getApiKey());
+    }
+
+    @Test
+    public void handleRequestShouldReturnAnErrorWhenTheUserDataQueryFails() {
+        when(dynamoDbClient.query(any(QueryRequest.class))).thenReturn(
+                CompletableFuture.failedFuture(DynamoDbException.builder().message("table unavailable").build()));
+        OpenAILambda lambda = new OpenAILambda(ssmClient, dynamoDbClient, WebClient.create());
+
+        Object response = lambda.handleRequest(
+                Map.of("queryStringParameters", Map.of("querystring", "{userId=user-1, calories=500}")), null);
+
+        String error = (String) response;
+        assertTrue(error.startsWith("Error occurred: Error retrieving data from DynamoDB: "));
+        assertTrue(error.contains("table unavailable"));
+    }
+
+    private static String parameterValue(String name) {
+        switch (name) {
+            case "OpenAI-Model":
+                return "gpt-test";
+            case "OpenAI-Model-Temperature":
+                return "0.5";
+            case "OpenAI-Max-Tokens":
+                return "300";
+            default:
+                return "api-key";
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.fitmymacros.nutrition;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles the nutrition CSV (name,calories,protein,carbs,fat per 100g) into
+ * the binary file read by {@link NutritionDatabase}. It lives with the tests so
+ * it isn't shipped in the Lambda jar, and NutritionDatabaseTest checks that the
+ * shipped file still matches the CSV. To regenerate it, after
+ * {@code mvn test-compile}:
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes com.fitmymacros.nutrition.NutritionDatabaseBuilder src/test/resources/nutrition.csv src/main/resources/nutrition.bin
+ * </pre>
+ */
+public class NutritionDatabaseBuilder {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: NutritionDatabaseBuilder <input.csv> <output.bin>");
+        }
+        int foodCount = build(Path.of(args[0]), Path.of(args[1]));
+        System.out.println("Written " + foodCount + " foods to " + args[1]);
+    }
+
+    /**
+     * This method compiles the given CSV into the given binary file
+     * 
+     * @param csv
+     * @param output
+     * @return the number of foods written
+     * @throws IOException
+     */
+    public static int build(Path csv, Path output) throws IOException {
+        List<byte[]> records = readRecords(csv);
+        try (OutputStream outputStream = Files.newOutputStream(output)) {
+            writeRecords(records, outputStream);
+        }
+        return records.size();
+    }
+
+    /**
+     * This method reads the CSV and converts each line into a binary record,
+     * skipping blank lines and comments
+     * 
+     * @param csv
+     * @return
+     * @throws IOException
+     */
+    private static List<byte[]> readRecords(Path csv) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        for (String line : Files.readAllLines(csv, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("Invalid nutrition line: " + line);
+            }
+            byte[] name = NutritionDatabase.normalize(fields[0]).getBytes(StandardCharsets.UTF_8);
+            if (name.length == 0 || name.length > NutritionDatabase.NAME_BYTES) {
+                throw new IllegalArgumentException("Invalid food name length: " + fields[0]);
+            }
+            byte[] record = new byte[NutritionDatabase.RECORD_BYTES];
+            System.arraycopy(name, 0, record, 0, name.length);
+            ByteBuffer buffer = ByteBuffer.wrap(record, NutritionDatabase.NAME_BYTES,
+                    4 * Float.BYTES);
+            for (int i = 1; i < fields.length; i++) {
+                buffer.putFloat(Float.parseFloat(fields[i].trim()));
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * This method writes the header and the records, sorted by name as
+     * {@link NutritionDatabase} expects
+     * 
+     * @param records
+     * @param outputStream
+     * @throws IOException
+     */
+    private static void writeRecords(List<byte[]> records, OutputStream outputStream) throws IOException {
+        records.sort((a, b) -> Arrays.compareUnsigned(a, 0, NutritionDatabase.NAME_BYTES,
+                b, 0, NutritionDatabase.NAME_BYTES));
+        for (int i = 1; i < records.size(); i++) {
+            if (Arrays.equals(records.get(i - 1), 0, NutritionDatabase.NAME_BYTES,
+                    records.get(i), 0, NutritionDatabase.NAME_BYTES)) {
+                throw new IllegalArgumentException("Duplicated food: "
+                        + new String(records.get(i), 0, NutritionDatabase.NAME_BYTES, StandardCharsets.UTF_8).trim());
+            }
+        }
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.writeInt(NutritionDatabase.MAGIC);
+        dataOutputStream.writeInt(NutritionDatabase.VERSION);
+        dataOutputStream.writeInt(records.size());
+        for (byte[] record : records) {
+            dataOutputStream.write(record);
+        }
+        dataOutputStream.flush();
+    }
+
+}
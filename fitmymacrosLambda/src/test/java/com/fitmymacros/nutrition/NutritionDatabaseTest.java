@@ -0,0 +1,133 @@
+package com.fitmymacros.nutrition;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fitmymacros.model.Macros;
+
+public class NutritionDatabaseTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private NutritionDatabase database;
+
+    @Before
+    public void setUp() throws IOException {
+        database = NutritionDatabase.map(build(
+                "# name,calories,protein,carbs,fat",
+                "Zucchini,17,1.2,3.1,0.3",
+                "Apple,52,0.3,13.8,0.2",
+                "Chicken breast,120,22.5,0,2.6",
+                "Cherry,63,1.1,16,0.2",
+                "Tomato,18,0.9,3.9,0.2",
+                "Peach,39,0.9,9.5,0.3"));
+    }
+
+    @Test
+    public void shouldFindFirstAndLastRecords() {
+        assertEquals(6, database.size());
+        assertEquals(52, database.lookup("Apple").getCalories(), 0.001);
+        assertEquals(17, database.lookup("Zucchini").getCalories(), 0.001);
+    }
+
+    @Test
+    public void shouldReadAllMacros() {
+        Macros chicken = database.lookup("Chicken breast");
+        assertEquals(120, chicken.getCalories(), 0.001);
+        assertEquals(22.5, chicken.getProtein(), 0.001);
+        assertEquals(0, chicken.getCarbs(), 0.001);
+        assertEquals(2.6, chicken.getFat(), 0.001);
+    }
+
+    @Test
+    public void shouldIgnoreCaseAndExtraSpaces() {
+        assertNotNull(database.lookup("  chicken   BREAST "));
+    }
+
+    @Test
+    public void shouldFallBackToSingular() {
+        assertEquals(63, database.lookup("Cherries").getCalories(), 0.001);
+        assertEquals(18, database.lookup("Tomatoes").getCalories(), 0.001);
+        assertEquals(39, database.lookup("Peaches").getCalories(), 0.001);
+        assertEquals(52, database.lookup("Apples").getCalories(), 0.001);
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownFoods() {
+        assertNull(database.lookup("Unobtainium"));
+        assertNull(database.lookup("Aardvark"));
+        assertNull(database.lookup("Zzz"));
+        assertNull(database.lookup(""));
+    }
+
+    @Test
+    public void shouldReturnNullForNamesLongerThanARecord() {
+        assertNull(database.lookup("Chicken breast with a very long name"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNamesLongerThanARecord() throws IOException {
+        build("Chicken breast with a very long name,120,22.5,0,2.6");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectDuplicatedFoods() throws IOException {
+        build("Apple,52,0.3,13.8,0.2", "apple,52,0.3,13.8,0.2");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectInvalidHeader() throws IOException {
+        Path path = build("Apple,52,0.3,13.8,0.2");
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[0] = 0;
+        Files.write(path, bytes);
+        NutritionDatabase.map(path);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectTruncatedFile() throws IOException {
+        Path path = build("Apple,52,0.3,13.8,0.2", "Peach,39,0.9,9.5,0.3");
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+        NutritionDatabase.map(path);
+    }
+
+    @Test
+    public void shippedDatabaseShouldMatchCsv() throws Exception {
+        Path csv = Path.of(getClass().getClassLoader().getResource("nutrition.csv").toURI());
+        Path rebuilt = temporaryFolder.newFile("rebuilt.bin").toPath();
+        NutritionDatabaseBuilder.build(csv, rebuilt);
+
+        NutritionDatabase shipped = NutritionDatabase.load("nutrition.bin");
+        assertTrue(shipped.size() > 0);
+        assertNotNull(shipped.lookup("Salt"));
+        Path shippedPath = Path.of(getClass().getClassLoader().getResource("nutrition.bin").toURI());
+        assertArrayEquals("nutrition.bin is out of date, regenerate it from nutrition.csv",
+                Files.readAllBytes(rebuilt), Files.readAllBytes(shippedPath));
+    }
+
+    private Path build(String... lines) throws IOException {
+        File csv = temporaryFolder.newFile();
+        Files.write(csv.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        Path output = temporaryFolder.newFile().toPath();
+        NutritionDatabaseBuilder.build(csv.toPath(), output);
+        return output;
+    }
+
+}
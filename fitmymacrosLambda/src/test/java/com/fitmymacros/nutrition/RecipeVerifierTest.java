@@ -0,0 +1,131 @@
+package com.fitmymacros.nutrition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fitmymacros.model.Macros;
+import com.fitmymacros.model.Recipe;
+
+public class RecipeVerifierTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private NutritionDatabase database;
+
+    @Before
+    public void setUp() throws IOException {
+        File csv = temporaryFolder.newFile();
+        Files.write(csv.toPath(), Arrays.asList(
+                "Test food,100,10,10,5",
+                "Apple,52,0.3,13.8,0.2",
+                "Salt,0,0,0,0"), StandardCharsets.UTF_8);
+        Path output = temporaryFolder.newFile().toPath();
+        NutritionDatabaseBuilder.build(csv.toPath(), output);
+        database = NutritionDatabase.map(output);
+    }
+
+    @Test
+    public void shouldAddUpIngredients() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(600, 40, 60, 20), 0.1);
+        Macros estimate = verifier.estimate(recipe("Test food", 200.0, "Apple", 100.0, "Salt", 2.0));
+        assertEquals(252, estimate.getCalories(), 0.001);
+        assertEquals(20.3, estimate.getProtein(), 0.001);
+        assertEquals(33.8, estimate.getCarbs(), 0.001);
+        assertEquals(10.2, estimate.getFat(), 0.001);
+    }
+
+    @Test
+    public void shouldIgnoreNegligibleUnknownIngredients() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(550, 55, 55, 27.5), 0.1);
+        Recipe recipe = recipe("Test food", 550.0, "Unobtainium", RecipeVerifier.NEGLIGIBLE_GRAMS);
+        assertEquals(550, verifier.estimate(recipe).getCalories(), 0.001);
+        assertTrue(verifier.passes(recipe));
+    }
+
+    @Test
+    public void shouldNotPassRecipesThatCannotBeEstimated() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(600, 40, 60, 20), 0.1);
+        Recipe unknownIngredient = recipe("Test food", 600.0, "Unobtainium", 50.0);
+        Recipe missingQuantity = recipe("Test food", 600.0, "Salt", null);
+        Recipe noIngredients = new Recipe();
+
+        for (Recipe recipe : Arrays.asList(unknownIngredient, missingQuantity, noIngredients)) {
+            assertNull(verifier.estimate(recipe));
+            assertEquals(Double.POSITIVE_INFINITY, verifier.score(recipe), 0);
+            assertFalse(verifier.passes(recipe));
+        }
+    }
+
+    @Test
+    public void shouldRankVerifiedRecipesBeforeUnverifiableOnes() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(600, 40, 60, 20), 0.1);
+        Recipe farOff = recipe("Apple", 5000.0);
+        Recipe unverifiable = recipe("Apple", 5000.0, "Unobtainium", 50.0);
+        assertFalse(verifier.passes(farOff));
+        assertTrue(verifier.score(farOff) < verifier.score(unverifiable));
+    }
+
+    @Test
+    public void shouldPassAtTheToleranceBoundary() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(500, 50, 50, 25), 0.1);
+        Recipe atTolerance = recipe("Test food", 550.0);
+        Recipe overTolerance = recipe("Test food", 551.0);
+        assertEquals(0.1, verifier.score(atTolerance), 0);
+        assertTrue(verifier.passes(atTolerance));
+        assertFalse(verifier.passes(overTolerance));
+    }
+
+    @Test
+    public void shouldOnlyMissEstimatedRecipesOffTheTargets() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(500, 50, 50, 25), 0.1);
+        assertFalse(verifier.misses(recipe("Test food", 550.0)));
+        assertTrue(verifier.misses(recipe("Test food", 600.0)));
+        assertFalse(verifier.misses(recipe("Test food", 600.0, "Unobtainium", 50.0)));
+        assertFalse(verifier.misses(recipe("Test food", 600.0, "Salt", null)));
+        assertFalse(verifier.misses(new Recipe()));
+    }
+
+    @Test
+    public void shouldListUnknownIngredients() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(500, 50, 50, 25), 0.1);
+        Recipe recipe = recipe("Test food", 100.0, "Unobtainium", 5.0, "Apples", 100.0, "Kryptonite", 50.0);
+        assertEquals(Arrays.asList("Unobtainium", "Kryptonite"), verifier.unknownIngredients(recipe));
+        assertTrue(verifier.unknownIngredients(new Recipe()).isEmpty());
+    }
+
+    @Test
+    public void shouldScoreTheLargestDeviation() {
+        RecipeVerifier verifier = new RecipeVerifier(database, new Macros(600, 60, 60, 60), 0.1);
+        // 600 kcal, 60g protein, 60g carbs and 30g fat: the fat is 50% off
+        assertEquals(0.5, verifier.score(recipe("Test food", 600.0)), 0.001);
+    }
+
+    private static Recipe recipe(Object... ingredientsAndGrams) {
+        Map<String, Double> ingredients = new LinkedHashMap<>();
+        for (int i = 0; i < ingredientsAndGrams.length; i += 2) {
+            ingredients.put((String) ingredientsAndGrams[i], (Double) ingredientsAndGrams[i + 1]);
+        }
+        Recipe recipe = new Recipe();
+        recipe.setDescription("A recipe");
+        recipe.setIngredients(ingredients);
+        return recipe;
+    }
+
+}